@@ -0,0 +1,175 @@
+package com.files;
+
+import com.utils.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+
+/**
+ *  Reads UTF-8 (or ASCII) file by large direct buffers and splits it to words, without decoding bytes to chars
+ *  and without building line strings.
+ *  <br>
+ *  Words are split the same way as by {@link Constants#regexToSplitWords}: word is a run of [a-zA-Z0-9_] characters.
+ *  All bytes of multi byte UTF-8 sequences are above 0x7F, so non-ASCII runs are always separators and are skipped
+ *  without decoding.
+ *  <br>
+ *  Every read buffer is moved by single bulk copy into a heap window, words are handed to consumer as ranges
+ *  of the window. Only unfinished word at the end of the window is copied again, to the window start,
+ *  so it is completed by the next read.
+ *  <br>
+ *  Direct buffer and window are allocated once per thread and reused by all files it reads, so reader must be used
+ *  by the thread that created it, one reader at a time. Direct buffer size is limited, so buffers of all
+ *  I/O threads together fit into {@link Constants#maxDirectReadMemory}.
+ */
+public class ByteTokenReader implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger( ByteTokenReader.class );
+  private static final boolean[] wordBytes = new boolean[256];
+  static {
+    for( int b = 'a'; b <= 'z'; b++ ) wordBytes[b] = true;
+    for( int b = 'A'; b <= 'Z'; b++ ) wordBytes[b] = true;
+    for( int b = '0'; b <= '9'; b++ ) wordBytes[b] = true;
+    wordBytes['_'] = true;
+  }
+  // Direct buffers are freed only by GC, so each thread keeps its own one instead of allocating it per file
+  private static final ThreadLocal<ByteBuffer> readBuffers = new ThreadLocal<>();
+  private static final ThreadLocal<byte[]> windows = new ThreadLocal<>();
+  private static final int maxBufferSize = (int) Math.max( 4096, Math.min( Constants.readBufferSize,
+      Constants.maxDirectReadMemory / ( (long) Runtime.getRuntime().availableProcessors() * Constants.maxIoThreadsPerCore )));
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+  private final int bufferSize;
+  private final ReadStatistics statistics;
+  /**
+   *  Byte reader with default buffer size
+   *
+   * @param fileName - file name
+   * @throws IOException - if file not exists or can't be read
+   */
+  public ByteTokenReader( String fileName ) throws IOException {
+    this( fileName, Constants.readBufferSize, new ReadStatistics() );
+  }
+
+  /**
+   *  Byte reader that reads up to given number of bytes at once
+   *
+   * @param fileName - file name
+   * @param bufferSize - size of direct read buffer in bytes, limited by per thread share of direct memory
+   * @throws IOException - if file not exists or can't be read
+   */
+  public ByteTokenReader( String fileName, int bufferSize ) throws IOException {
+    this( fileName, bufferSize, new ReadStatistics() );
+  }
+
+  /**
+   *  Byte reader that reads up to given number of bytes at once and reports every read to statistics
+   *
+   * @param fileName - file name
+   * @param bufferSize - size of direct read buffer in bytes, limited by per thread share of direct memory
+   * @param statistics - statistics to update on every buffer
+   * @throws IOException - if file not exists or can't be read
+   */
+  public ByteTokenReader( String fileName, int bufferSize, ReadStatistics statistics ) throws IOException {
+    this.statistics = statistics;
+    try{
+      channel = new FileInputStream( fileName ).getChannel();
+    }catch ( FileNotFoundException ex ){
+      logger.error("Failed to open file " + fileName, ex );
+      throw ex;
+    }
+    this.bufferSize = Math.max( 1, Math.min( bufferSize, maxBufferSize ));
+    ByteBuffer threadBuffer = readBuffers.get();
+    if( threadBuffer == null || threadBuffer.capacity() < this.bufferSize ){
+      threadBuffer = ByteBuffer.allocateDirect( this.bufferSize );
+      readBuffers.set( threadBuffer );
+    }
+    buffer = threadBuffer;
+    resetBuffer();
+  }
+
+  /**
+   *  Prepare buffer for next read, shared buffer could be bigger than this reader buffer size
+   */
+  private void resetBuffer(){
+    buffer.clear();
+    buffer.limit( bufferSize );
+  }
+
+  /**
+   *  Read whole file and pass each word to consumer
+   *
+   * @param consumer - words consumer
+   * @return number of words found
+   * @throws IOException - if failed to read file
+   */
+  public long forEachToken( TokenConsumer consumer ) throws IOException {
+    long numOfWords = 0;
+    byte[] window = windows.get();
+    if( window == null || window.length < bufferSize * 2 ){
+      window = new byte[bufferSize * 2];
+    }
+    // Bytes of unfinished word, kept at the window start
+    int carried = 0;
+    try {
+      while( true ){
+        long readStart = System.nanoTime();
+        int numOfBytes = channel.read( buffer );
+        long computeStart = System.nanoTime();
+        if( numOfBytes < 0 ){
+          break;
+        }
+        statistics.addRead( numOfBytes, computeStart - readStart );
+        if( carried + numOfBytes > window.length ){
+          // Word is longer than the window
+          window = Arrays.copyOf( window, Math.max( window.length * 2, carried + numOfBytes ));
+        }
+        buffer.flip();
+        buffer.get( window, carried, numOfBytes );
+        resetBuffer();
+        int end = carried + numOfBytes;
+        int wordStart = carried > 0 ? 0 : -1;
+        for( int i = carried; i < end; i++ ){
+          if( wordBytes[window[i] & 0xFF] ){
+            if( wordStart < 0 ){
+              wordStart = i;
+            }
+          }else if( wordStart >= 0 ){
+            consumer.accept( window, wordStart, i - wordStart );
+            numOfWords++;
+            wordStart = -1;
+          }
+        }
+        carried = wordStart < 0 ? 0 : end - wordStart;
+        if( wordStart > 0 ){
+          System.arraycopy( window, wordStart, window, 0, carried );
+        }
+        statistics.addCompute( System.nanoTime() - computeStart );
+      }
+      if( carried > 0 ){
+        consumer.accept( window, 0, carried );
+        numOfWords++;
+      }
+    }finally {
+      windows.set( window );
+    }
+    return numOfWords;
+  }
+
+  /**
+   *  Close file if open, used as part of autocloseable interface,
+   *  to make file closing managed by try
+   */
+  @Override
+  public void close() {
+    try{
+      channel.close();
+    }catch ( Exception ex ){
+      logger.error("Failed to close file", ex );
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package com.files;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *  Statistics shared by all readers, updated on every buffer read so consumer sees throughput as it happens
+ *  and not when files are finished
+ */
+@Getter
+public class ReadStatistics {
+
+  // Time spent waiting for file reads
+  private final LongAdder readNanos = new LongAdder();
+  // Time spent processing words of read buffers
+  private final LongAdder computeNanos = new LongAdder();
+  private final LongAdder bytesRead = new LongAdder();
+
+  /**
+   *  Add single buffer read
+   *
+   * @param numOfBytes - number of bytes read
+   * @param nanos - time spent in read
+   */
+  public void addRead( long numOfBytes, long nanos ){
+    bytesRead.add( numOfBytes );
+    readNanos.add( nanos );
+  }
+
+  /**
+   *  Add processing of single buffer
+   *
+   * @param nanos - time spent processing buffer words
+   */
+  public void addCompute( long nanos ){
+    computeNanos.add( nanos );
+  }
+}
@@ -15,6 +15,9 @@ public class TaskResult {
   protected long taskId;
   protected int numOfProcessed = 0;
   protected String fileName;
+  protected ResultType resultType = ResultType.Ok;
+  // Words of processed file and their occurrences, not yet committed to shared index
+  protected WordCountTable wordCounts;
 
   public TaskResult( long id, String fileName ){
     resultMessage = ResultType.Ok.getName();
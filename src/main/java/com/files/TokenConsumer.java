@@ -0,0 +1,17 @@
+package com.files;
+
+/**
+ *  Receives words found by {@link ByteTokenReader} as byte ranges
+ */
+@FunctionalInterface
+public interface TokenConsumer {
+
+  /**
+   *  Handle single word, bytes are valid only during the call and must be copied if kept
+   *
+   * @param bytes - buffer that contains word
+   * @param offset - word start in buffer
+   * @param length - word length in bytes
+   */
+  void accept( byte[] bytes, int offset, int length );
+}
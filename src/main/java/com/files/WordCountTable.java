@@ -0,0 +1,151 @@
+package com.files;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
+
+/**
+ *  Counts ASCII words given as byte ranges, case insensitive.
+ *  <br>
+ *  Open addressing table that hashes and compares bytes of the range directly, lower casing them on the fly,
+ *  so repeated word costs no allocation. Lower cased bytes and String of a word are created only on its first
+ *  appearance. Not thread safe, meant to count words of a single file.
+ */
+public class WordCountTable {
+
+  private static final int initialCapacity = 1024;
+  private final Predicate<String> ignored;
+  private byte[][] keys = new byte[initialCapacity][];
+  private String[] words = new String[initialCapacity];
+  private int[] hashes = new int[initialCapacity];
+  private long[] counts = new long[initialCapacity];
+  // Words rejected by filter are still kept in table, so they are rejected once and not on every appearance
+  private boolean[] skipped = new boolean[initialCapacity];
+  private int size = 0;
+
+  /**
+   *  Table that counts all words
+   */
+  public WordCountTable(){
+    this( word -> false );
+  }
+
+  /**
+   *  Table that counts all words except of ignored ones
+   *
+   * @param ignored - filter of lower cased words that are not counted, called once per distinct word
+   */
+  public WordCountTable( Predicate<String> ignored ){
+    this.ignored = ignored;
+  }
+
+  /**
+   *  Increment counter of lower cased word
+   *
+   * @param bytes - buffer that contains ASCII word
+   * @param offset - word start in buffer
+   * @param length - word length
+   */
+  public void add( byte[] bytes, int offset, int length ){
+    int hash = 0;
+    for( int i = offset; i < offset + length; i++ ){
+      hash = 31 * hash + toLowerCase( bytes[i] );
+    }
+    int mask = keys.length - 1;
+    int slot = mix( hash ) & mask;
+    while( keys[slot] != null ){
+      if( hashes[slot] == hash && matches( keys[slot], bytes, offset, length )){
+        counts[slot]++;
+        return;
+      }
+      slot = ( slot + 1 ) & mask;
+    }
+    byte[] key = new byte[length];
+    for( int i = 0; i < length; i++ ){
+      key[i] = toLowerCase( bytes[offset + i] );
+    }
+    // Words contain ASCII bytes only, so Latin1 makes plain copy without decoding
+    String word = new String( key, StandardCharsets.ISO_8859_1 );
+    keys[slot] = key;
+    words[slot] = word;
+    hashes[slot] = hash;
+    counts[slot] = 1;
+    skipped[slot] = ignored.test( word );
+    if( ++size * 2 > keys.length ){
+      grow();
+    }
+  }
+
+  /**
+   *  Pass every counted word and its number of occurrences to action
+   *
+   * @param action - consumer of word and its count
+   */
+  public void forEach( ObjLongConsumer<String> action ){
+    for( int slot = 0; slot < keys.length; slot++ ){
+      if( keys[slot] != null && !skipped[slot] ){
+        action.accept( words[slot], counts[slot] );
+      }
+    }
+  }
+
+  /**
+   * @return number of distinct words, including ignored ones
+   */
+  public int size(){
+    return size;
+  }
+
+  private void grow(){
+    byte[][] oldKeys = keys;
+    String[] oldWords = words;
+    int[] oldHashes = hashes;
+    long[] oldCounts = counts;
+    boolean[] oldSkipped = skipped;
+    int capacity = oldKeys.length * 2;
+    keys = new byte[capacity][];
+    words = new String[capacity];
+    hashes = new int[capacity];
+    counts = new long[capacity];
+    skipped = new boolean[capacity];
+    int mask = capacity - 1;
+    for( int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++ ){
+      if( oldKeys[oldSlot] == null ){
+        continue;
+      }
+      int slot = mix( oldHashes[oldSlot] ) & mask;
+      while( keys[slot] != null ){
+        slot = ( slot + 1 ) & mask;
+      }
+      keys[slot] = oldKeys[oldSlot];
+      words[slot] = oldWords[oldSlot];
+      hashes[slot] = oldHashes[oldSlot];
+      counts[slot] = oldCounts[oldSlot];
+      skipped[slot] = oldSkipped[oldSlot];
+    }
+  }
+
+  private static boolean matches( byte[] key, byte[] bytes, int offset, int length ){
+    if( key.length != length ){
+      return false;
+    }
+    for( int i = 0; i < length; i++ ){
+      if( key[i] != toLowerCase( bytes[offset + i] )){
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte toLowerCase( byte b ){
+    return ( b >= 'A' && b <= 'Z' ) ? (byte)( b + ( 'a' - 'A' )) : b;
+  }
+
+  /**
+   *  Spread polynomial hash bits, so linear probing doesn't cluster on low bits
+   */
+  private static int mix( int hash ){
+    hash *= 0x9E3779B9;
+    return hash ^ ( hash >>> 16 );
+  }
+}
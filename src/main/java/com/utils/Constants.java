@@ -16,10 +16,21 @@ public class Constants {
     add("and");
   }};
   public final static int maxNumOfFilesInBatch = 2;
+  // Number of words in single snapshot chunk, chunks are checksummed and loaded in parallel
+  public final static int snapshotWordsInChunk = 8192;
+  // Size of direct buffer used to read files and limit of all such buffers together, in bytes
+  public final static int readBufferSize = 1 << 20;
+  public final static long maxDirectReadMemory = 64L << 20;
+  // How often pools size is tuned and upper limit of I/O threads per core, to cover slow network storage
+  public final static long poolTuningIntervalMillis = 500;
+  public final static int maxIoThreadsPerCore = 8;
+  // How many times timed out file is retried before quarantine, every retry doubles the timeout
+  public final static int maxNumOfRetries = 1;
 
   public final static String input = "input";
   public final static String timeout = "timeout";
   public final static String numOfThreads = "numOfThreads";
+  public final static String snapshot = "snapshot";
 
   public final static String regexToSplitWords = "\\W+";
 
@@ -29,7 +40,8 @@ public class Constants {
     Ok( "File processed successfully", 0 ),
     Fail( "Failed to process file", 3 ),
     BadContent( "Content is empty", 1 ),
-    FileNotExist( "File not exist", 2 );
+    FileNotExist( "File not exist", 2 ),
+    Timeout( "File processing timed out", 4 );
 
     private final String name;
     private int code = 0;
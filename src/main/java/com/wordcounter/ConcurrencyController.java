@@ -0,0 +1,203 @@
+package com.wordcounter;
+
+import com.files.ReadStatistics;
+import com.utils.Constants;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  Owns worker pools and tunes their size from throughput and queue depth observed at runtime.
+ *  <br>
+ *  I/O pool runs file processing tasks. Its target size comes from ratio of time spent waiting for reads to time
+ *  spent processing words: cores * ( 1 + wait / compute ), so fast SSD keeps it near number of cores and slow
+ *  network storage grows it up to {@link Constants#maxIoThreadsPerCore} per core. Near the target size is refined
+ *  by hill climbing on bytes per second: step is reversed when throughput drops.
+ *  <br>
+ *  CPU pool runs pure compute work (snapshot decoding) and has fixed size of number of cores. Snapshot is decoded
+ *  only while I/O pool is idle, so there is nothing to balance between the pools.
+ *  <br>
+ *  I/O pool never grows while there is no work waiting in its queue, idle threads of both pools time out.
+ */
+public class ConcurrencyController implements Closeable {
+
+  private static final Logger logger = LoggerFactory.getLogger( ConcurrencyController.class );
+  // Throughput drop that is treated as result of last resize and not as noise
+  private static final double throughputTolerance = 0.1;
+  private final int cores;
+  @Getter
+  private final int maxIoThreads;
+  private final ThreadPoolExecutor ioPool;
+  private final ThreadPoolExecutor cpuPool;
+  private final ScheduledExecutorService scheduler;
+  // Read statistics of running file tasks, updated by workers on every buffer
+  @Getter
+  private final ReadStatistics statistics = new ReadStatistics();
+  private long lastTuningTime = System.nanoTime();
+  private double lastThroughput = 0;
+  private int direction = 1;
+
+  /**
+   *  Controller of all available cores, that tunes I/O pool periodically
+   *
+   * @param initialIoThreads - initial size of I/O pool
+   */
+  public ConcurrencyController( int initialIoThreads ){
+    this( initialIoThreads, Runtime.getRuntime().availableProcessors(), Constants.poolTuningIntervalMillis );
+  }
+
+  /**
+   *
+   * @param initialIoThreads - initial size of I/O pool
+   * @param cores - number of cores to size pools for
+   * @param tuningIntervalMillis - how often I/O pool is tuned, 0 to tune only by explicit {@link #tune(long, long, long, long)} calls
+   */
+  public ConcurrencyController( int initialIoThreads, int cores, long tuningIntervalMillis ){
+    this.cores = cores;
+    maxIoThreads = cores * Constants.maxIoThreadsPerCore;
+    ioPool = newPool( "io-worker", Math.max( 1, Math.min( initialIoThreads, maxIoThreads )));
+    cpuPool = newPool( "cpu-worker", cores );
+    ScheduledThreadPoolExecutor tuner = new ScheduledThreadPoolExecutor( 1, daemonThreads( "pool-tuner" ));
+    // Per file timeouts are cancelled when file is done, they shouldn't wait in queue until their delay expires
+    tuner.setRemoveOnCancelPolicy( true );
+    scheduler = tuner;
+    if( tuningIntervalMillis > 0 ){
+      scheduler.scheduleWithFixedDelay( this::tune, tuningIntervalMillis, tuningIntervalMillis, TimeUnit.MILLISECONDS );
+    }
+    logger.info("Initial pools size - I/O: {}, CPU: {}", ioPool.getCorePoolSize(), cpuPool.getCorePoolSize() );
+  }
+
+  /**
+   * @return pool for file processing tasks
+   */
+  public ExecutorService getIoPool(){
+    return ioPool;
+  }
+
+  /**
+   * @return pool for compute only tasks
+   */
+  public ExecutorService getCpuPool(){
+    return cpuPool;
+  }
+
+  /**
+   * @return current size of I/O pool
+   */
+  public int getIoPoolSize(){
+    return ioPool.getCorePoolSize();
+  }
+
+  /**
+   *  Run action after delay on tuning scheduler, used for per task timeouts
+   *
+   * @param action - action to run
+   * @param delay - delay before action
+   * @param unit - delay unit
+   * @return scheduled action, to be cancelled if not needed anymore
+   */
+  public ScheduledFuture<?> schedule( Runnable action, long delay, TimeUnit unit ){
+    return scheduler.schedule( action, delay, unit );
+  }
+
+  /**
+   *  Called periodically by scheduler, resize I/O pool from statistics gathered since last call
+   */
+  private synchronized void tune(){
+    try{
+      long now = System.nanoTime();
+      long elapsed = now - lastTuningTime;
+      lastTuningTime = now;
+      tune( statistics.getReadNanos().sumThenReset(), statistics.getComputeNanos().sumThenReset(),
+          statistics.getBytesRead().sumThenReset(), elapsed );
+    }catch ( Exception ex ){
+      // Exception would cancel further scheduled runs
+      logger.error("Failed to tune pools", ex );
+    }
+  }
+
+  /**
+   *  Resize I/O pool from given statistics of file tasks
+   *
+   * @param waitNanos - time spent by file tasks waiting for reads
+   * @param computeNanos - time spent by file tasks on words processing
+   * @param numOfBytes - number of bytes read
+   * @param elapsedNanos - time the statistics were gathered in
+   */
+  public synchronized void tune( long waitNanos, long computeNanos, long numOfBytes, long elapsedNanos ){
+    double throughput = numOfBytes * 1e9 / Math.max( 1, elapsedNanos );
+    int size = ioPool.getCorePoolSize();
+    int queued = ioPool.getQueue().size();
+    if( waitNanos + computeNanos == 0 ){
+      // Nothing was read since last time, keep current size and forget stale throughput
+      if( queued == 0 ){
+        lastThroughput = 0;
+      }
+      return;
+    }
+    int target = (int) Math.min( maxIoThreads, Math.round( cores * ( 1 + (double) waitNanos / Math.max( 1, computeNanos ))));
+    int next;
+    if( Math.abs( target - size ) > 1 ){
+      // Far from estimation, move half way towards it
+      next = size + ( target - size ) / 2;
+      direction = Integer.signum( target - size );
+    }else{
+      if( lastThroughput > 0 && throughput < lastThroughput * ( 1 - throughputTolerance )){
+        direction = -direction;
+      }
+      next = size + direction;
+    }
+    if( queued == 0 ){
+      next = Math.min( next, size );
+    }
+    next = Math.max( 1, Math.min( next, maxIoThreads ));
+    lastThroughput = throughput;
+    if( next != size ){
+      logger.info("Resizing I/O pool {} -> {}: {} bytes/sec, wait/compute {}/{} ms, queued {}",
+          size, next, Math.round( throughput ), waitNanos / 1000000, computeNanos / 1000000, queued );
+      resize( ioPool, next );
+    }
+  }
+
+  /**
+   *  Change fixed pool size, maximum size can't be set below core size so order depends on direction
+   */
+  private static void resize( ThreadPoolExecutor pool, int size ){
+    if( size > pool.getMaximumPoolSize() ){
+      pool.setMaximumPoolSize( size );
+      pool.setCorePoolSize( size );
+    }else{
+      pool.setCorePoolSize( size );
+      pool.setMaximumPoolSize( size );
+    }
+  }
+
+  private static ThreadPoolExecutor newPool( String name, int size ){
+    ThreadPoolExecutor pool = new ThreadPoolExecutor( size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), daemonThreads( name ));
+    pool.allowCoreThreadTimeOut( true );
+    return pool;
+  }
+
+  private static ThreadFactory daemonThreads( String name ){
+    AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread( runnable, name + "-" + counter.incrementAndGet() );
+      thread.setDaemon( true );
+      return thread;
+    };
+  }
+
+  /**
+   *  Stop tuning and both pools
+   */
+  @Override
+  public void close(){
+    scheduler.shutdownNow();
+    ioPool.shutdownNow();
+    cpuPool.shutdownNow();
+  }
+}
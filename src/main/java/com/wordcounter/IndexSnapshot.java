@@ -0,0 +1,351 @@
+package com.wordcounter;
+
+import com.utils.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ *  Binary snapshot of inverted index, to skip corpus parsing on startup.
+ *  <br>
+ *  Layout: header( magic, version ), file names dictionary block, number of word chunks and chunks themselves.
+ *  Every block is prefixed by number of entries, payload length and CRC32 of payload, so chunks could be located
+ *  by scanning headers only and then verified and decoded in parallel. Words map is replaced, also in parallel,
+ *  only after all chunks were decoded, so corrupted snapshot never leaves map half loaded.
+ *  Postings are stored as indexes into file names dictionary.
+ */
+public class IndexSnapshot {
+
+  private static final Logger logger = LoggerFactory.getLogger( IndexSnapshot.class );
+  private static final int MAGIC = 0x57434958;
+  private static final int VERSION = 1;
+  // Block header: number of entries, payload length and payload checksum
+  private static final int BLOCK_HEADER_SIZE = Integer.BYTES + Integer.BYTES + Long.BYTES;
+  // Smallest encoded file name: string length only
+  private static final int MIN_FILE_NAME_SIZE = Integer.BYTES;
+  // Smallest encoded word: string length, occurrences and number of postings
+  private static final int MIN_WORD_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+  /**
+   *  Location of single checksummed block inside snapshot file
+   */
+  private static class Block {
+    private final long position;
+    private final int entries;
+    private final int length;
+    private final long checksum;
+
+    Block( long position, int entries, int length, long checksum ){
+      this.position = position;
+      this.entries = entries;
+      this.length = length;
+      this.checksum = checksum;
+    }
+  }
+
+  /**
+   *  Write words map to snapshot file. Content written to temporary file first and then moved,
+   *  so half written snapshot is never picked up on startup.
+   *
+   * @param wordCounts - words map to save
+   * @param fileName - snapshot file location
+   * @throws IOException - if failed to write snapshot
+   */
+  public static void write( Map<String, WordMetaData> wordCounts, String fileName ) throws IOException {
+    write( wordCounts, fileName, Constants.snapshotWordsInChunk );
+  }
+
+  /**
+   *  Write words map to snapshot file with given number of words in chunk
+   *
+   * @param wordCounts - words map to save
+   * @param fileName - snapshot file location
+   * @param wordsInChunk - number of words in single chunk
+   * @throws IOException - if failed to write snapshot
+   */
+  public static void write( Map<String, WordMetaData> wordCounts, String fileName, int wordsInChunk ) throws IOException {
+    Path target = Paths.get( fileName ).toAbsolutePath();
+    Path temp = target.resolveSibling( target.getFileName() + ".tmp" );
+
+    Map<String, Integer> fileIds = new HashMap<>();
+    List<String> fileNames = new ArrayList<>();
+    List<Map.Entry<String, WordMetaData>> entries = new ArrayList<>( wordCounts.entrySet() );
+    for( Map.Entry<String, WordMetaData> entry : entries ){
+      for( String fileId : entry.getValue().getFileIdSet() ){
+        if( !fileIds.containsKey( fileId )){
+          fileIds.put( fileId, fileNames.size() );
+          fileNames.add( fileId );
+        }
+      }
+    }
+    int numOfChunks = ( entries.size() + wordsInChunk - 1 ) / wordsInChunk;
+
+    try {
+      writeBlocks( temp, entries, fileIds, fileNames, numOfChunks, wordsInChunk );
+      Files.move( temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }catch ( IOException | RuntimeException e ){
+      try {
+        Files.deleteIfExists( temp );
+      }catch ( IOException suppressed ){
+        e.addSuppressed( suppressed );
+      }
+      throw e;
+    }
+    logger.info("Saved snapshot {}: {} words, {} files, {} chunks", fileName, entries.size(), fileNames.size(), numOfChunks );
+  }
+
+  /**
+   *  Write header, file names dictionary and word chunks to given file
+   */
+  private static void writeBlocks( Path file, List<Map.Entry<String, WordMetaData>> entries, Map<String, Integer> fileIds,
+                                   List<String> fileNames, int numOfChunks, int wordsInChunk ) throws IOException {
+    try( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( file )))){
+      out.writeInt( MAGIC );
+      out.writeInt( VERSION );
+
+      ByteArrayOutputStream payload = new ByteArrayOutputStream();
+      DataOutputStream payloadOut = new DataOutputStream( payload );
+      for( String fileId : fileNames ){
+        writeString( payloadOut, fileId );
+      }
+      writeBlock( out, fileNames.size(), payload );
+
+      out.writeInt( numOfChunks );
+      for( int chunk = 0; chunk < numOfChunks; chunk++ ){
+        int from = chunk * wordsInChunk;
+        int to = Math.min( from + wordsInChunk, entries.size() );
+        payload.reset();
+        for( Map.Entry<String, WordMetaData> entry : entries.subList( from, to )){
+          Set<String> postings = entry.getValue().getFileIdSet();
+          writeString( payloadOut, entry.getKey() );
+          payloadOut.writeLong( entry.getValue().getOccurencesNo().sum() );
+          payloadOut.writeInt( postings.size() );
+          for( String fileId : postings ){
+            payloadOut.writeInt( fileIds.get( fileId ));
+          }
+        }
+        writeBlock( out, to - from, payload );
+      }
+    }
+  }
+
+  /**
+   *  Replace content of words map by snapshot file, chunks are verified and decoded in parallel by executor.
+   *  Words map is not changed if any of chunks fails.
+   *
+   * @param fileName - snapshot file location
+   * @param wordCounts - words map to replace content of
+   * @param executor - executor to run chunks decoding
+   * @throws IOException - if snapshot is missing, corrupted or of unknown version
+   * @throws ExecutionException - if decoding was interrupted
+   */
+  public static void read( String fileName, Map<String, WordMetaData> wordCounts, ExecutorService executor ) throws IOException, ExecutionException {
+    try( FileChannel channel = FileChannel.open( Paths.get( fileName ), StandardOpenOption.READ )){
+      ByteBuffer header = readFully( channel, 0, Integer.BYTES * 2 );
+      if( header.getInt() != MAGIC ){
+        throw new IOException("Not a words snapshot - " + fileName );
+      }
+      int version = header.getInt();
+      if( version != VERSION ){
+        throw new IOException("Unsupported snapshot version " + version + " - " + fileName );
+      }
+      long position = Integer.BYTES * 2;
+
+      Block dictionary = readBlockHeader( channel, position, MIN_FILE_NAME_SIZE );
+      String[] fileNames = readDictionary( channel, dictionary );
+      position = dictionary.position + BLOCK_HEADER_SIZE + dictionary.length;
+
+      // Locate all chunks by skipping over payloads, decoding is done in parallel afterwards
+      int numOfChunks = readFully( channel, position, Integer.BYTES ).getInt();
+      position += Integer.BYTES;
+      if( numOfChunks < 0 || numOfChunks > ( channel.size() - position ) / BLOCK_HEADER_SIZE ){
+        throw new IOException("Snapshot has invalid number of chunks " + numOfChunks + " at position " + ( position - Integer.BYTES ));
+      }
+      List<Block> chunks = new ArrayList<>( numOfChunks );
+      for( int chunk = 0; chunk < numOfChunks; chunk++ ){
+        Block block = readBlockHeader( channel, position, MIN_WORD_SIZE );
+        chunks.add( block );
+        position = block.position + BLOCK_HEADER_SIZE + block.length;
+      }
+      if( position != channel.size() ){
+        throw new IOException("Snapshot has unexpected data at position " + position );
+      }
+
+      List<Future<Map<String, WordMetaData>>> futures = new ArrayList<>( numOfChunks );
+      for( Block chunk : chunks ){
+        futures.add( executor.submit( () -> readChunk( channel, chunk, fileNames )));
+      }
+      List<Map<String, WordMetaData>> decodedChunks = new ArrayList<>( numOfChunks );
+      try {
+        for( Future<Map<String, WordMetaData>> future : futures ){
+          decodedChunks.add( future.get() );
+        }
+      }finally {
+        // Chunks left after failure only fill their own maps, so cancelling them is enough
+        futures.forEach( future -> future.cancel( true ));
+      }
+      wordCounts.clear();
+      int numOfWords = putChunks( decodedChunks, wordCounts, executor );
+      logger.info("Loaded snapshot {}: {} words, {} files, {} chunks", fileName, numOfWords, fileNames.length, numOfChunks );
+    }catch ( InterruptedException e ){
+      Thread.currentThread().interrupt();
+      throw new ExecutionException("Interrupted while loading snapshot - " + fileName, e );
+    }catch ( ExecutionException e ){
+      if( e.getCause() instanceof IOException ){
+        throw new IOException("Failed to load snapshot - " + fileName, e.getCause() );
+      }
+      throw e;
+    }
+  }
+
+  /**
+   *  Put all decoded chunks into words map in parallel. Waits for all of them even if interrupted,
+   *  so no chunk is still being put after return.
+   *
+   * @return number of words put
+   */
+  private static int putChunks( List<Map<String, WordMetaData>> decodedChunks, Map<String, WordMetaData> wordCounts, ExecutorService executor ) throws ExecutionException {
+    List<Future<Integer>> futures = new ArrayList<>( decodedChunks.size() );
+    for( Map<String, WordMetaData> decodedChunk : decodedChunks ){
+      futures.add( executor.submit( () -> {
+        wordCounts.putAll( decodedChunk );
+        return decodedChunk.size();
+      }));
+    }
+    boolean interrupted = false;
+    int numOfWords = 0;
+    for( Future<Integer> future : futures ){
+      while( true ){
+        try {
+          numOfWords += future.get();
+          break;
+        }catch ( InterruptedException e ){
+          interrupted = true;
+        }
+      }
+    }
+    if( interrupted ){
+      Thread.currentThread().interrupt();
+    }
+    return numOfWords;
+  }
+
+  /**
+   *  Verify checksum of file names dictionary and decode it
+   *
+   * @return file names by their index
+   */
+  private static String[] readDictionary( FileChannel channel, Block dictionary ) throws IOException {
+    ByteBuffer payload = readPayload( channel, dictionary );
+    String[] fileNames = new String[dictionary.entries];
+    try {
+      for( int i = 0; i < fileNames.length; i++ ){
+        fileNames[i] = readString( payload );
+      }
+    }catch ( BufferUnderflowException e ){
+      throw new IOException("Snapshot dictionary is malformed at position " + dictionary.position, e );
+    }
+    return fileNames;
+  }
+
+  /**
+   *  Verify checksum of a single chunk and decode its words
+   *
+   * @return words of chunk
+   */
+  private static Map<String, WordMetaData> readChunk( FileChannel channel, Block chunk, String[] fileNames ) throws IOException {
+    Map<String, WordMetaData> wordCounts = new HashMap<>( chunk.entries * 4 / 3 + 1 );
+    ByteBuffer payload = readPayload( channel, chunk );
+    try {
+      for( int i = 0; i < chunk.entries; i++ ){
+        String word = readString( payload );
+        long occurences = payload.getLong();
+        int numOfPostings = payload.getInt();
+        if( numOfPostings < 0 || numOfPostings > payload.remaining() / Integer.BYTES ){
+          throw new IOException("Snapshot chunk has invalid number of postings " + numOfPostings + " at position " + chunk.position );
+        }
+        Set<String> postings = new HashSet<>( numOfPostings * 4 / 3 + 1 );
+        for( int j = 0; j < numOfPostings; j++ ){
+          postings.add( fileNames[payload.getInt()] );
+        }
+        wordCounts.put( word, new WordMetaData( postings, occurences ));
+      }
+    }catch ( BufferUnderflowException | IndexOutOfBoundsException e ){
+      throw new IOException("Snapshot chunk is malformed at position " + chunk.position, e );
+    }
+    return wordCounts;
+  }
+
+  /**
+   *  Read and validate block header, so no corrupted count is used to allocate memory
+   *
+   * @param minEntrySize - smallest possible size of single encoded entry of the block
+   */
+  private static Block readBlockHeader( FileChannel channel, long position, int minEntrySize ) throws IOException {
+    ByteBuffer header = readFully( channel, position, BLOCK_HEADER_SIZE );
+    Block block = new Block( position, header.getInt(), header.getInt(), header.getLong() );
+    if( block.length < 0 || position + BLOCK_HEADER_SIZE + block.length > channel.size() ){
+      throw new EOFException("Snapshot is truncated at position " + position );
+    }
+    if( block.entries < 0 || block.entries > block.length / minEntrySize ){
+      throw new IOException("Snapshot block has invalid number of entries " + block.entries + " at position " + position );
+    }
+    return block;
+  }
+
+  private static ByteBuffer readPayload( FileChannel channel, Block block ) throws IOException {
+    ByteBuffer payload = channel.map( FileChannel.MapMode.READ_ONLY, block.position + BLOCK_HEADER_SIZE, block.length );
+    CRC32 crc = new CRC32();
+    crc.update( payload.duplicate() );
+    if( crc.getValue() != block.checksum ){
+      throw new IOException("Snapshot checksum mismatch at position " + block.position );
+    }
+    return payload;
+  }
+
+  private static ByteBuffer readFully( FileChannel channel, long position, int size ) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate( size );
+    while( buffer.hasRemaining() ){
+      if( channel.read( buffer, position + buffer.position() ) < 0 ){
+        throw new EOFException("Snapshot is truncated at position " + position );
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static void writeBlock( DataOutputStream out, int entries, ByteArrayOutputStream payload ) throws IOException {
+    CRC32 crc = new CRC32();
+    byte[] bytes = payload.toByteArray();
+    crc.update( bytes );
+    out.writeInt( entries );
+    out.writeInt( bytes.length );
+    out.writeLong( crc.getValue() );
+    out.write( bytes );
+  }
+
+  private static void writeString( DataOutputStream out, String value ) throws IOException {
+    byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+    out.writeInt( bytes.length );
+    out.write( bytes );
+  }
+
+  private static String readString( ByteBuffer buffer ){
+    int length = buffer.getInt();
+    if( length < 0 || length > buffer.remaining() ){
+      throw new BufferUnderflowException();
+    }
+    byte[] bytes = new byte[length];
+    buffer.get( bytes );
+    return new String( bytes, StandardCharsets.UTF_8 );
+  }
+}
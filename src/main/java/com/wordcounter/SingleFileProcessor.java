@@ -1,14 +1,16 @@
 package com.wordcounter;
 
-import com.files.FileIterator;
+import com.files.ByteTokenReader;
+import com.files.ReadStatistics;
 import com.files.TaskResult;
+import com.files.WordCountTable;
 import com.utils.Constants;
 import com.utils.Constants.ResultType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.FileNotFoundException;
-import java.util.Arrays;
+import java.nio.channels.ClosedByInterruptException;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -17,43 +19,25 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.LongAdder;
 
 /**
- *   Process single file of text, map all words and count their appearances using map
+ *   Process single file of text, map all words and count their appearances.
+ *   Words are counted in local table of this file only, that is returned in {@link TaskResult} and committed
+ *   to shared index by caller on success, so failed or cancelled file leaves shared index untouched.
+ *   Table counts words by their bytes, so word String is created once per file and not on every appearance.
  */
 public class SingleFileProcessor implements Callable<TaskResult> {
   private static final Logger logger = LoggerFactory.getLogger( SingleFileProcessor.class );
   private final String fileName;
-  private Map<String, WordMetaData> wordCount;
+  private final ReadStatistics statistics;
+  private final WordCountTable wordCount = new WordCountTable( Constants.stopWords::contains );
   /**
    *  Creates text processor for a single file
    *
    * @param fileName - file location
-   * @param wordCount - reference to concurrent hash map
+   * @param statistics - read statistics shared by all processors
    */
-  public SingleFileProcessor( String fileName, Map<String, WordMetaData> wordCount ){
+  public SingleFileProcessor( String fileName, ReadStatistics statistics ){
     this.fileName = fileName;
-    this.wordCount = wordCount;
-  }
-  /**
-   *  Map each line of text to array of strings using regex
-   *
-   * @param line - line of text from file
-   * @return array of strings
-   */
-  private String[] map( String line ){
-    return line.split(Constants.regexToSplitWords);
-  }
-  /**
-   *  Take words and update their counter in words shared map
-   *
-   * @param words - array of words
-   */
-  private void reduce( String[] words, String fileId ){
-    Arrays.stream(words)
-         .filter( word -> !word.isEmpty() && !Constants.stopWords.contains(word.toLowerCase()))
-         .forEach( currentWord ->  {
-           wordCount.computeIfAbsent( currentWord.toLowerCase(), k -> new WordMetaData(fileId)).getFileIdSet().add(fileId);
-           wordCount.get(currentWord.toLowerCase()).getOccurencesNo().increment();
-         });
+    this.statistics = statistics;
   }
   /**
    *  Main task function that called by executor service
@@ -63,21 +47,23 @@ public class SingleFileProcessor implements Callable<TaskResult> {
   @Override
   public TaskResult call(){
     TaskResult taskResult = new TaskResult( Thread.currentThread().getId(), fileName );
-    int numOfWordsProcessed = 0;
-    try( FileIterator fileIterator = new FileIterator( fileName )){
-      while( fileIterator.hasNext() ){
-        String[] words = map( fileIterator.next() );
-        numOfWordsProcessed += words.length;
-        reduce( words, fileName );
-      }
+    try( ByteTokenReader tokenReader = new ByteTokenReader( fileName, Constants.readBufferSize, statistics )){
+      int numOfWordsProcessed = (int) tokenReader.forEachToken( wordCount::add );
       taskResult.setNumOfProcessed(numOfWordsProcessed);
+      taskResult.setWordCounts(wordCount);
       logger.info("Finished processing words: {}", numOfWordsProcessed );
     }catch( FileNotFoundException fne ){
       logger.error("File not exist {}", fileName, fne );
       taskResult.setResultMessage( ResultType.FileNotExist.getName() );
+      taskResult.setResultType( ResultType.FileNotExist );
+    }catch ( ClosedByInterruptException ie ){
+      logger.warn("Processing of file [{}] was cancelled", fileName );
+      taskResult.setResultMessage( ResultType.Timeout.getName() );
+      taskResult.setResultType( ResultType.Timeout );
     }catch ( Exception ex ){
       logger.error("Failed to process file [{}]", fileName, ex );
       taskResult.setResultMessage( ex.getMessage() );
+      taskResult.setResultType( ResultType.Fail );
     }
     return taskResult;
   }
@@ -22,4 +22,14 @@ public class WordMetaData {
   public WordMetaData(String fileId){
     fileIdSet.add(fileId);
   }
+
+  /**
+   *
+   * @param fileIdSet - files that contain word
+   * @param occurencesNo - number of word occurrences
+   */
+  public WordMetaData(Set<String> fileIdSet, long occurencesNo){
+    this.fileIdSet = fileIdSet;
+    this.occurencesNo.add(occurencesNo);
+  }
 }
@@ -3,6 +3,7 @@ package com.wordcounter;
 import com.files.FileUtils;
 import com.files.TaskResult;
 import com.utils.Constants;
+import com.utils.Constants.ResultType;
 import lombok.Getter;
 import org.apache.commons.cli.*;
 import org.apache.commons.lang3.StringUtils;
@@ -17,6 +18,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
 
@@ -26,9 +29,9 @@ import java.util.stream.Collectors;
  * Receive few files and will build inverted index (and later print) of all the words that exist in these files (together) and the
  * number of times each one of them appears.
  * <br>
- * In order to get {@link WordsCounter} object use its builder as following:
+ * In order to get {@link WordsCounter} object use its builder as following, it owns worker pools so should be closed:
  * <br>{@code
- * WordsCounter wordsCounter = new WordsCounter(timeout, TimeUnit.SECONDS );
+ * try( WordsCounter wordsCounter = new WordsCounter(timeout, TimeUnit.SECONDS )){ ... }
  *}
  * <br>
  * Parameters example:
@@ -39,7 +42,7 @@ import java.util.stream.Collectors;
  *
  */
 @Getter
-public class WordsCounter {
+public class WordsCounter implements AutoCloseable {
   private static final Logger logger = LoggerFactory.getLogger( WordsCounter.class );
   // Initial censures a reasonably good number of elements before resizing happens.
   private int initialCapacity = 32;
@@ -48,8 +51,12 @@ public class WordsCounter {
   private int maxTimeout = 0;
   public Map<String, WordMetaData> wordCounts;
   private TimeUnit unit;
-  private ExecutorService executor;
+  private ConcurrencyController controller;
   private int concurrency = 0;
+  // Files that failed or timed out after all retries, none of their words are in index
+  private Set<String> quarantinedFiles = ConcurrentHashMap.newKeySet();
+  // Write lock is taken to commit a file or load snapshot, so readers never see it partially
+  private ReadWriteLock indexLock = new ReentrantReadWriteLock();
   /**
    *
    * @param maxTimeOut - maximum timeout to wait for single file processor to finish
@@ -59,26 +66,68 @@ public class WordsCounter {
     this.maxTimeout = maxTimeOut;
     this.unit = unit;
     // Want to create concurrency that equals to number of com.files or number of cores on machine
-    // each core could handle multiple threads, usually 2
+    // each core could handle multiple threads, usually 2. It is only initial size, controller tunes it at runtime
     concurrency = Math.min( Constants.maxNumOfFilesInBatch, Runtime.getRuntime().availableProcessors()*2 );
     logger.info("Concurrency used - " + concurrency );
+    controller = new ConcurrencyController( concurrency );
 
-    wordCounts = new ConcurrentHashMap<>( initialCapacity, loadFactor, concurrency );
+    // Concurrency level is only a sizing hint for map, so it doesn't follow pools size
+    wordCounts = new ConcurrentHashMap<>( initialCapacity, loadFactor, Runtime.getRuntime().availableProcessors() );
   }
 
   /**
-   *  Create set of callables using SingleFileProcessors
+   *  Create processor for single file, its result is committed to index by {@link #load(String...)}
    *
-   * @param fileNames - array of file locations
-   * @return set of callables of type Set<Callable>
+   * @param fileName - file location
+   * @return callable that processes the file
    */
-  private Set<Callable<TaskResult>> createTasks(String[] fileNames ) {
-    Set<Callable<TaskResult>> callables = new HashSet<>();
-    for( String fileName : fileNames ){
-      SingleFileProcessor singleFileProcessor = new SingleFileProcessor( fileName, wordCounts );
-      callables.add( singleFileProcessor );
+  protected Callable<TaskResult> createProcessor( String fileName ) {
+    return new SingleFileProcessor( fileName, controller.getStatistics() );
+  }
+
+  /**
+   *  Submit single file processor to I/O pool. Timeout is started when file processing starts and not when
+   *  it is queued, when it expires task is cancelled and its thread is interrupted.
+   *
+   * @param fileName - file location
+   * @param timeout - maximum time for this file
+   * @return future of submitted task
+   */
+  private Future<TaskResult> submitTask( String fileName, long timeout ) {
+    FutureTask<TaskResult> task = new FutureTask<TaskResult>( createProcessor( fileName )){
+      @Override
+      public void run() {
+        ScheduledFuture<?> watchdog = controller.schedule( () -> cancel( true ), timeout, unit );
+        try {
+          super.run();
+        }finally {
+          watchdog.cancel( false );
+        }
+      }
+    };
+    controller.getIoPool().execute( task );
+    return task;
+  }
+
+  /**
+   *  Merge words of single file into shared index. Done under write lock, so search sees either all words
+   *  of the file or none of them. File quarantined by previous load is released, as it is part of index now.
+   *
+   * @param taskResult - successful result of file processor
+   */
+  private void commit( TaskResult taskResult ){
+    String fileName = taskResult.getFileName();
+    indexLock.writeLock().lock();
+    try {
+      taskResult.getWordCounts().forEach( ( word, count ) -> {
+        WordMetaData meta = wordCounts.computeIfAbsent( word, k -> new WordMetaData( fileName ));
+        meta.getFileIdSet().add( fileName );
+        meta.getOccurencesNo().add( count );
+      });
+      quarantinedFiles.remove( fileName );
+    }finally {
+      indexLock.writeLock().unlock();
     }
-    return callables;
   }
 
   /**
@@ -99,37 +148,113 @@ public class WordsCounter {
   }
   /**
    *  Receives file names and process all of them, count words occurrences.
+   *  <br>
+   *  Each file has its own timeout and is committed to index only if processed successfully.
+   *  Timed out file is retried with doubled timeout up to {@link Constants#maxNumOfRetries} times,
+   *  failed file or file that is still timing out is quarantined and other files are not affected.
    *
    * @param fileNames - variable list of file names
+   * @return true if all files were committed, false if some of them were quarantined
    */
   public boolean load( String ... fileNames ) throws FileNotFoundException, ExecutionException {
     boolean res = true;
     validateInput( fileNames );
-    Set<Callable<TaskResult>> tasks = createTasks( fileNames );
-    try {
-      // Submit all tasks to executor
-      executor = Executors.newFixedThreadPool( concurrency );
-      List<Future<TaskResult>> futures = executor.invokeAll( tasks, maxTimeout, unit );
-      // Iterate over all tasks and waiting for maximum timeout
-      for( Future<TaskResult> future : futures){
-        TaskResult taskResult = future.get();
-        logger.info("Response from task id [{}]: processed {} -> {}", taskResult.getTaskId(), taskResult.getNumOfProcessed(), taskResult.getResultMessage());
+    List<String> filesToProcess = Arrays.asList( fileNames );
+    long timeout = maxTimeout;
+    for( int attempt = 0; !filesToProcess.isEmpty(); attempt++, timeout *= 2 ){
+      Map<String, Future<TaskResult>> futures = new LinkedHashMap<>();
+      for( String fileName : filesToProcess ){
+        futures.put( fileName, submitTask( fileName, timeout ));
       }
-    }catch ( CancellationException cc ){
-      throw new ExecutionException("Timed out to process files -" + StringUtils.join( fileNames, ","), cc );
-    }catch ( InterruptedException | ExecutionException e ) {
-      throw new ExecutionException("Failed to process files -" + StringUtils.join( fileNames, ","), e );
-    }finally {
-      executor.shutdown();
+      List<String> timedOutFiles = new ArrayList<>();
       try {
-        executor.awaitTermination( maxTimeout, unit );
-      } catch( InterruptedException e ) {
-        logger.error("Failed to stop executor ", e );
+        for( Map.Entry<String, Future<TaskResult>> entry : futures.entrySet() ){
+          String fileName = entry.getKey();
+          try {
+            TaskResult taskResult = entry.getValue().get();
+            logger.info("Response from task id [{}]: processed {} -> {}", taskResult.getTaskId(), taskResult.getNumOfProcessed(), taskResult.getResultMessage());
+            if( taskResult.getResultType() == ResultType.Ok ){
+              commit( taskResult );
+            }else{
+              res &= quarantine( fileName, taskResult.getResultMessage() );
+            }
+          }catch ( CancellationException cc ){
+            if( attempt < Constants.maxNumOfRetries ){
+              logger.warn("Timed out to process file {} in {} {}, going to retry", fileName, timeout, unit );
+              timedOutFiles.add( fileName );
+            }else{
+              res &= quarantine( fileName, ResultType.Timeout.getName() );
+            }
+          }catch ( ExecutionException e ){
+            logger.error("Failed to process file {}", fileName, e );
+            res &= quarantine( fileName, e.getMessage() );
+          }
+        }
+      }catch ( InterruptedException e ) {
+        futures.values().forEach( future -> future.cancel( true ));
+        Thread.currentThread().interrupt();
+        throw new ExecutionException("Interrupted while processing files -" + StringUtils.join( fileNames, ","), e );
       }
+      filesToProcess = timedOutFiles;
     }
     return res;
   }
 
+  /**
+   *  Exclude file from index, nothing of it is committed
+   *
+   * @param fileName - file location
+   * @param reason - why file was excluded
+   * @return always false, file was not loaded
+   */
+  private boolean quarantine( String fileName, String reason ){
+    logger.error("File {} is quarantined: {}", fileName, reason );
+    quarantinedFiles.add( fileName );
+    return false;
+  }
+
+  /**
+   *  Save current words map as binary snapshot, to be loaded on next start instead of parsing files
+   *
+   * @param snapshotFile - snapshot file location
+   * @throws IOException - if failed to write snapshot
+   */
+  public void saveSnapshot( String snapshotFile ) throws IOException {
+    indexLock.readLock().lock();
+    try {
+      IndexSnapshot.write( wordCounts, snapshotFile );
+    }finally {
+      indexLock.readLock().unlock();
+    }
+  }
+
+  /**
+   *  Replace words map by content of binary snapshot, snapshot chunks are decoded in parallel.
+   *  Words map is changed only after all chunks were verified and decoded, so on failure it is left as is.
+   *
+   * @param snapshotFile - snapshot file location
+   * @throws IOException - if snapshot is missing or corrupted
+   * @throws ExecutionException - if loading was interrupted
+   */
+  public void loadSnapshot( String snapshotFile ) throws IOException, ExecutionException {
+    indexLock.writeLock().lock();
+    try {
+      IndexSnapshot.read( snapshotFile, wordCounts, controller.getCpuPool() );
+      // Files quarantined by previous loads are not part of restored index
+      quarantinedFiles.clear();
+    }finally {
+      indexLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   *  Stop worker pools, counter can't load files after that
+   */
+  @Override
+  public void close(){
+    controller.close();
+  }
+
   /**
    *  Print all numbers and their occurrences count
    */
@@ -163,14 +288,20 @@ public class WordsCounter {
         .hasArg()
         .longOpt(Constants.timeout)
         .build();
+    Option snapshot = Option.builder()
+        .hasArg()
+        .longOpt(Constants.snapshot)
+        .build();
     input.setArgs( Option.UNLIMITED_VALUES );
     Options options = new Options();
     options.addOption( input );
     options.addOption( timeout );
+    options.addOption( snapshot );
     return options;
   }
   public Set<String> search(String searchExpression){
     Set<String> results = new HashSet<>();
+    indexLock.readLock().lock();
     try{
       List<String> searchWords = Arrays.stream(searchExpression.split(Constants.regexToSplitWords))
           .filter(word -> !Constants.stopWords.contains(word))
@@ -182,6 +313,8 @@ public class WordsCounter {
       }
     }catch (Exception ex){
       logger.error("Failed to make search", ex);
+    }finally {
+      indexLock.readLock().unlock();
     }
 
     return results;
@@ -193,6 +326,7 @@ public class WordsCounter {
    * @param args - program arguments, for example --input "words\" --timeout 60
    *        --input folder that contains files
    *        --timeout timeout for each file in seconds
+   *        --snapshot index snapshot file, loaded instead of input folder if exists, otherwise created after load
    * @throws {@link IllegalArgumentException}
    */
   public static void main(String[] args) throws IllegalArgumentException, ExecutionException {
@@ -202,35 +336,64 @@ public class WordsCounter {
       // parse the command line arguments
       CommandLine line = parser.parse( buildArguments(), args );
       Integer timeout = Integer.valueOf( line.getOptionValue(Constants.timeout));
-      WordsCounter wordsCounter = new WordsCounter(timeout, TimeUnit.SECONDS );
-      String in = line.getOptionValue(Constants.input);
-
-      // Make files pagination and load by chunks, to deal with folder that contains huge amount of files
-      Path dir = FileSystems.getDefault().getPath( in );
-      try(DirectoryStream<Path> stream = Files.newDirectoryStream( dir )){
-        List<String> filesToProcess = new ArrayList<>();
-        int numOfReadFiles = 0;
-        for (Path path : stream) {
-          filesToProcess.add(path.toString());
-          logger.info( "Found file: " + path.getFileName() );
-          if (++numOfReadFiles % Constants.maxNumOfFilesInBatch == 0){
-            logger.info( "Processing chunk id: " + numOfReadFiles / Constants.maxNumOfFilesInBatch );
-            if( wordsCounter.load( filesToProcess.toArray(new String[0]) )){
-              logger.info( "Finished to process chunk id: " + numOfReadFiles / Constants.maxNumOfFilesInBatch );
+      try( WordsCounter wordsCounter = new WordsCounter(timeout, TimeUnit.SECONDS )){
+        String in = line.getOptionValue(Constants.input);
+        String snapshot = line.getOptionValue(Constants.snapshot);
+
+        if( snapshot != null && FileUtils.checkThatFileExists( snapshot )){
+          try {
+            wordsCounter.loadSnapshot( snapshot );
+            wordsCounter.displayStatusSorted();
+            logger.info("Snapshot loading took {} milliseconds", System.currentTimeMillis() - executionStartTime );
+            return;
+          }catch ( IOException e ){
+            logger.error("Failed to load snapshot {}, going to parse input folder", snapshot, e );
+          }
+        }
+
+        // Make files pagination and load by chunks, to deal with folder that contains huge amount of files.
+        // Chunk is twice the current I/O pool size, so pool always has queued files and controller can grow it
+        Path dir = FileSystems.getDefault().getPath( in );
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream( dir )){
+          List<String> filesToProcess = new ArrayList<>();
+          int chunkId = 0;
+          for (Path path : stream) {
+            filesToProcess.add(path.toString());
+            logger.info( "Found file: " + path.getFileName() );
+            if (filesToProcess.size() >= Math.max( Constants.maxNumOfFilesInBatch, wordsCounter.getController().getIoPoolSize() * 2 )){
+              logger.info( "Processing chunk id: " + ++chunkId );
+              if( wordsCounter.load( filesToProcess.toArray(new String[0]) )){
+                logger.info( "Finished to process chunk id: " + chunkId );
+              }else{
+                logger.warn( "Finished to process chunk id: " + chunkId + ", some files were quarantined" );
+              }
               filesToProcess.clear();
             }
           }
+          if(!filesToProcess.isEmpty()){
+            if( wordsCounter.load( filesToProcess.toArray(new String[0]) )){
+              logger.info( "Finished to process leftovers");
+            }else{
+              logger.warn( "Finished to process leftovers, some files were quarantined" );
+            }
+          }
+
+          wordsCounter.displayStatusSorted();
+          if( !wordsCounter.getQuarantinedFiles().isEmpty() ){
+            logger.warn( "Quarantined files: " + String.join( ",", wordsCounter.getQuarantinedFiles() ));
+          }
         }
-        if(!filesToProcess.isEmpty()){
-          if( wordsCounter.load( filesToProcess.toArray(new String[0]) )){
-            logger.info( "Finished to process leftovers");
+        if( snapshot != null ){
+          if( wordsCounter.getQuarantinedFiles().isEmpty() ){
+            wordsCounter.saveSnapshot( snapshot );
+          }else{
+            // Snapshot is loaded instead of parsing on next run, so quarantined files would never be retried
+            logger.error( "Snapshot {} is not saved, {} files were quarantined and are missing from index",
+                snapshot, wordsCounter.getQuarantinedFiles().size() );
           }
         }
-
-        wordsCounter.displayStatusSorted();
+        logger.info("Word Counting took {} milliseconds", System.currentTimeMillis() - executionStartTime );
       }
-      logger.info("Word Counting took {} milliseconds", System.currentTimeMillis() - executionStartTime );
-
     } catch(ParseException pe) {
       logger.error("Failed to to iterate folder", pe);
       throw new IllegalArgumentException("Failed to parse arguments, example that should be: --input \"words\\inputSuperLarge1.txt\" --timeout 60");
@@ -0,0 +1,87 @@
+package files;
+
+import com.files.ByteTokenReader;
+import com.utils.Constants;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ByteTokenReaderTest {
+
+  @TempDir
+  public Path tempDir;
+
+  private List<String> readTokens( String fileName, int bufferSize ) throws IOException {
+    List<String> tokens = new ArrayList<>();
+    try( ByteTokenReader tokenReader = new ByteTokenReader( fileName, bufferSize )){
+      long numOfTokens = tokenReader.forEachToken( ( bytes, offset, length ) -> tokens.add( new String( bytes, offset, length, StandardCharsets.UTF_8 )));
+      assertEquals("Failed to check number of tokens", tokens.size(), numOfTokens );
+    }
+    return tokens;
+  }
+
+  private List<String> splitTokens( String fileName ) throws IOException {
+    return Files.readAllLines( Paths.get( fileName ), StandardCharsets.UTF_8 ).stream()
+        .flatMap( line -> Arrays.stream( line.split( Constants.regexToSplitWords )))
+        .filter( word -> !word.isEmpty() )
+        .collect( Collectors.toList() );
+  }
+
+  private String writeFile( String content ) throws IOException {
+    Path file = tempDir.resolve("input.txt");
+    Files.write( file, content.getBytes( StandardCharsets.UTF_8 ));
+    return file.toString();
+  }
+
+  @Test
+  public void testTokensMatchRegexSplit() throws Exception {
+    for( String fileName : new String[]{"words_small/inputSample1.txt", "words/inputSample1.txt", "words/inputLarge1.txt"} ){
+      assertEquals("Failed to check " + fileName, splitTokens( fileName ), readTokens( fileName, Constants.readBufferSize ));
+    }
+  }
+
+  @Test
+  public void testLinesThatSpanBufferBoundaries() throws Exception {
+    String fileName = "words_small/inputSample1.txt";
+    List<String> expected = splitTokens( fileName );
+    for( int bufferSize = 1; bufferSize <= 32; bufferSize++ ){
+      assertEquals("Failed to check buffer size " + bufferSize, expected, readTokens( fileName, bufferSize ));
+    }
+  }
+
+  @Test
+  public void testNonAsciiRunsAreSeparators() throws Exception {
+    String fileName = writeFile("Caf\u00e9 na\u00efve_word\r\n\u00dcber stra\u00dfe \u65e5\u672c\u8a9etext end\nlast");
+    List<String> expected = splitTokens( fileName );
+    assertEquals("Failed to check tokens", Arrays.asList("Caf", "na", "ve_word", "ber", "stra", "e", "text", "end", "last"), expected );
+    for( int bufferSize = 1; bufferSize <= 16; bufferSize++ ){
+      assertEquals("Failed to check buffer size " + bufferSize, expected, readTokens( fileName, bufferSize ));
+    }
+  }
+
+  @Test
+  public void testLongWordAndEmptyFile() throws Exception {
+    char[] chars = new char[1000];
+    Arrays.fill( chars, 'x' );
+    String longWord = new String( chars );
+    assertEquals("Failed to check long word", Arrays.asList( longWord, "tail" ), readTokens( writeFile( longWord + " tail" ), 7 ));
+    assertTrue("Failed to check empty file", readTokens( writeFile("" ), 7 ).isEmpty() );
+  }
+
+  @Test
+  public void testCheckNotExistedFile(){
+    assertThrows(FileNotFoundException.class, () -> {
+      new ByteTokenReader("input/777");
+    });
+  }
+}
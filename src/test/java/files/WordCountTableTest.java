@@ -0,0 +1,61 @@
+package files;
+
+import com.files.WordCountTable;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class WordCountTableTest {
+
+  private Map<String, Long> toMap( WordCountTable table ){
+    Map<String, Long> counts = new HashMap<>();
+    table.forEach( counts::put );
+    return counts;
+  }
+
+  @Test
+  public void testWordsAreCountedCaseInsensitiveByRange(){
+    byte[] bytes = "xxHelloxHELLOxhelloxWorld".getBytes( StandardCharsets.US_ASCII );
+    WordCountTable table = new WordCountTable();
+    table.add( bytes, 2, 5 );
+    table.add( bytes, 8, 5 );
+    table.add( bytes, 14, 5 );
+    table.add( bytes, 20, 5 );
+    table.add( bytes, 2, 4 );
+    Map<String, Long> expected = new HashMap<>();
+    expected.put("hello", 3L );
+    expected.put("world", 1L );
+    expected.put("hell", 1L );
+    assertEquals("Failed to check counts", expected, toMap( table ));
+  }
+
+  @Test
+  public void testIgnoredWordsAreNotReported(){
+    byte[] bytes = "The cat".getBytes( StandardCharsets.US_ASCII );
+    WordCountTable table = new WordCountTable( "the"::equals );
+    table.add( bytes, 0, 3 );
+    table.add( bytes, 4, 3 );
+    table.add( bytes, 0, 3 );
+    assertEquals("Failed to check number of distinct words", 2, table.size());
+    assertEquals("Failed to check counts", Collections.singletonMap("cat", 1L ), toMap( table ));
+  }
+
+  @Test
+  public void testManyWordsSurviveGrowing(){
+    WordCountTable table = new WordCountTable();
+    Map<String, Long> expected = new HashMap<>();
+    for( int i = 0; i < 20000; i++ ){
+      String word = "word" + ( i % 5000 );
+      byte[] bytes = word.getBytes( StandardCharsets.US_ASCII );
+      table.add( bytes, 0, bytes.length );
+      expected.merge( word, 1L, Long::sum );
+    }
+    assertEquals("Failed to check number of distinct words", 5000, table.size());
+    assertEquals("Failed to check counts", expected, toMap( table ));
+  }
+}
@@ -0,0 +1,108 @@
+package wordcounter;
+
+import com.utils.Constants;
+import com.wordcounter.ConcurrencyController;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyControllerTest {
+
+  private static final int cores = 4;
+  private static final long second = 1000000000L;
+  private final CountDownLatch release = new CountDownLatch( 1 );
+  private ConcurrencyController controller;
+
+  @AfterEach
+  public void tearDown(){
+    release.countDown();
+    if( controller != null ){
+      controller.close();
+    }
+  }
+
+  /**
+   *  Controller without periodic tuning, I/O pool queue is never empty while tasks are blocked
+   */
+  private ConcurrencyController createController( int initialIoThreads, int numOfTasks ){
+    controller = new ConcurrencyController( initialIoThreads, cores, 0 );
+    for( int i = 0; i < numOfTasks; i++ ){
+      controller.getIoPool().submit( () -> {
+        release.await();
+        return null;
+      });
+    }
+    return controller;
+  }
+
+  private int ioPoolSize(){
+    ThreadPoolExecutor pool = (ThreadPoolExecutor) controller.getIoPool();
+    assertEquals("Failed to check that pool has fixed size", pool.getCorePoolSize(), pool.getMaximumPoolSize());
+    return pool.getCorePoolSize();
+  }
+
+  @Test
+  public void testGrowsHalfWayTowardsEstimatedSize(){
+    createController( 2, 100 );
+    // Waiting for reads three times longer than processing: cores * ( 1 + 3 ) threads
+    controller.tune( 3 * second, second, 1000, second );
+    assertEquals("Failed to check first step", 2 + ( 16 - 2 ) / 2, ioPoolSize());
+    controller.tune( 3 * second, second, 1000, second );
+    assertEquals("Failed to check second step", 9 + ( 16 - 9 ) / 2, ioPoolSize());
+    for( int i = 0; i < 10; i++ ){
+      controller.tune( 3 * second, second, 1000, second );
+    }
+    assertTrue("Failed to check size near estimation", Math.abs( ioPoolSize() - 16 ) <= 1 );
+  }
+
+  @Test
+  public void testGrowthIsCappedByMaxIoThreads(){
+    createController( 2, 100 );
+    for( int i = 0; i < 20; i++ ){
+      controller.tune( 100 * second, second, 1000, second );
+      assertTrue("Failed to check cap", ioPoolSize() <= cores * Constants.maxIoThreadsPerCore );
+    }
+    assertEquals("Failed to check cap", cores * Constants.maxIoThreadsPerCore, controller.getMaxIoThreads());
+    assertEquals("Failed to check size", controller.getMaxIoThreads(), ioPoolSize());
+  }
+
+  @Test
+  public void testNoGrowthWhileQueueIsEmpty(){
+    createController( 2, 0 );
+    for( int i = 0; i < 5; i++ ){
+      controller.tune( 3 * second, second, 1000, second );
+    }
+    assertEquals("Failed to check size", 2, ioPoolSize());
+  }
+
+  @Test
+  public void testHillClimbingReversesOnThroughputDrop(){
+    // Nothing to wait for: estimation equals number of cores, so size is refined by throughput only
+    createController( cores, 100 );
+    controller.tune( 0, second, 1000, second );
+    assertEquals("Failed to check step up", cores + 1, ioPoolSize());
+    controller.tune( 0, second, 500, second );
+    assertEquals("Failed to check reversal", cores, ioPoolSize());
+    controller.tune( 0, second, 550, second );
+    assertEquals("Failed to check that direction is kept", cores - 1, ioPoolSize());
+    controller.tune( 0, second, 400, second );
+    assertEquals("Failed to check second reversal", cores, ioPoolSize());
+  }
+
+  @Test
+  public void testResizeOrderWhenShrinkingAndGrowing(){
+    createController( 2, 100 );
+    controller.tune( 100 * second, second, 1000, second );
+    assertEquals("Failed to check growth", 2 + ( cores * Constants.maxIoThreadsPerCore - 2 ) / 2, ioPoolSize());
+    // Throughput drop near the target is not needed to shrink, estimation below current size is enough
+    controller.tune( 0, second, 1000, second );
+    int shrunk = ioPoolSize();
+    assertTrue("Failed to check shrinking", shrunk < 2 + ( cores * Constants.maxIoThreadsPerCore - 2 ) / 2 );
+    controller.tune( 100 * second, second, 1000, second );
+    assertTrue("Failed to check growth after shrinking", ioPoolSize() > shrunk );
+  }
+}
@@ -1,15 +1,27 @@
 package wordcounter;
 
+import com.files.TaskResult;
 import com.utils.Constants;
+import com.wordcounter.IndexSnapshot;
+import com.wordcounter.WordMetaData;
 import com.wordcounter.WordsCounter;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.Assert.assertArrayEquals;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -18,6 +30,11 @@ public class WordsCounterTest {
   private WordsCounter wordsCounter = new WordsCounter( 60, TimeUnit.SECONDS );
   public Map<String, Long> wordsCountMap = new HashMap<>();
 
+  @AfterEach
+  public void tearDown(){
+    wordsCounter.close();
+  }
+
   @BeforeEach
   public void setUp(){
     wordsCountMap.put("and", 457L );
@@ -27,12 +44,93 @@ public class WordsCounterTest {
 
   }
 
+  /**
+   *  Processor that never finishes by itself, only timeout stops it
+   */
+  private static Callable<TaskResult> blockUntilInterrupted( String fileName ){
+    return () -> {
+      Thread.sleep( Long.MAX_VALUE );
+      return new TaskResult( Thread.currentThread().getId(), fileName );
+    };
+  }
+
   @Test
   public void testTimeoutWordCounts() throws Exception {
-    WordsCounter wordsCounter1 = new WordsCounter( 1, TimeUnit.NANOSECONDS );
-    assertThrows(ExecutionException.class, () -> {
-      wordsCounter1.load(new String[]{"words/inputLarge1.txt"});
-    });
+    try( WordsCounter wordsCounter1 = new WordsCounter( 50, TimeUnit.MILLISECONDS ){
+      @Override
+      protected Callable<TaskResult> createProcessor( String fileName ){
+        return blockUntilInterrupted( fileName );
+      }
+    }){
+      assertFalse("Failed to check timeout", wordsCounter1.load(new String[]{"words/inputLarge1.txt", "words/inputLarge2.txt"}));
+      assertEquals("Failed to check quarantined files", new HashSet<>(Arrays.asList("words/inputLarge1.txt", "words/inputLarge2.txt")), wordsCounter1.getQuarantinedFiles());
+      assertTrue("Failed to check that timed out files are not committed", wordsCounter1.wordCounts.isEmpty());
+    }
+  }
+
+  @Test
+  public void testSlowFileIsQuarantinedAndOtherFilesAreCommitted() throws Exception {
+    String slowFile = "words/inputLarge2.txt";
+    try( WordsCounter wordsCounter1 = new WordsCounter( 200, TimeUnit.MILLISECONDS ){
+      @Override
+      protected Callable<TaskResult> createProcessor( String fileName ){
+        return fileName.equals( slowFile ) ? blockUntilInterrupted( fileName ) : super.createProcessor( fileName );
+      }
+    }){
+      assertFalse("Failed to check timeout", wordsCounter1.load(new String[]{"words/inputLarge1.txt", slowFile, "words/inputLarge3.txt"}));
+      assertEquals("Failed to check quarantined files", Collections.singleton( slowFile ), wordsCounter1.getQuarantinedFiles());
+      assertEquals("Failed to check committed files", new HashSet<>(Arrays.asList("words/inputLarge1.txt", "words/inputLarge3.txt")), wordsCounter1.wordCounts.get("software").getFileIdSet());
+      for( String key: wordsCounter1.wordCounts.keySet() ){
+        assertFalse("Failed to check " + key, wordsCounter1.wordCounts.get(key).getFileIdSet().contains( slowFile ));
+      }
+    }
+  }
+
+  @Test
+  public void testTimedOutFileSucceedsOnRetryWithDoubledTimeout() throws Exception {
+    String slowFile = "words_small/inputSample1.txt";
+    AtomicInteger attempts = new AtomicInteger();
+    try( WordsCounter wordsCounter1 = new WordsCounter( 500, TimeUnit.MILLISECONDS ){
+      @Override
+      protected Callable<TaskResult> createProcessor( String fileName ){
+        if( !fileName.equals( slowFile )){
+          return super.createProcessor( fileName );
+        }
+        if( attempts.incrementAndGet() == 1 ){
+          return blockUntilInterrupted( fileName );
+        }
+        // Longer than first timeout, but shorter than doubled one
+        Callable<TaskResult> processor = super.createProcessor( fileName );
+        return () -> {
+          Thread.sleep( 750 );
+          return processor.call();
+        };
+      }
+    }){
+      assertTrue("Failed to load files", wordsCounter1.load(new String[]{slowFile, "words_small/inputSample2.txt"}));
+      assertEquals("Failed to check attempts", 2, attempts.get());
+      assertTrue("Failed to check quarantined files", wordsCounter1.getQuarantinedFiles().isEmpty());
+      assertEquals("Failed to check committed files", new HashSet<>(Arrays.asList(slowFile, "words_small/inputSample2.txt")), wordsCounter1.wordCounts.get("computer").getFileIdSet());
+    }
+  }
+
+  @Test
+  public void testQuarantinedFileIsReleasedWhenCommittedLater() throws Exception {
+    String slowFile = "words_small/inputSample1.txt";
+    AtomicBoolean slow = new AtomicBoolean( true );
+    try( WordsCounter wordsCounter1 = new WordsCounter( 50, TimeUnit.MILLISECONDS ){
+      @Override
+      protected Callable<TaskResult> createProcessor( String fileName ){
+        return slow.get() ? blockUntilInterrupted( fileName ) : super.createProcessor( fileName );
+      }
+    }){
+      assertFalse("Failed to check timeout", wordsCounter1.load(new String[]{slowFile}));
+      assertEquals("Failed to check quarantined files", Collections.singleton( slowFile ), wordsCounter1.getQuarantinedFiles());
+      slow.set( false );
+      assertTrue("Failed to load file", wordsCounter1.load(new String[]{slowFile}));
+      assertTrue("Failed to check quarantined files", wordsCounter1.getQuarantinedFiles().isEmpty());
+      assertEquals("Failed to check committed files", Collections.singleton( slowFile ), wordsCounter1.wordCounts.get("computer").getFileIdSet());
+    }
   }
 
   @Test
@@ -109,4 +207,132 @@ public class WordsCounterTest {
     Arrays.sort(foundFiles);
     assertArrayEquals("Failed to check inverted file index", filesToProcess, foundFiles);
   }
+
+  @Test
+  public void testSaveAndLoadSnapshot(@TempDir Path tempDir) throws Exception {
+    String[] filesToProcess = new String[]{"words/inputLarge1.txt", "words/inputLarge2.txt", "words/inputSample1.txt"};
+    assertTrue( "Failed to load files", wordsCounter.load(filesToProcess));
+    String snapshot = tempDir.resolve("index.bin").toString();
+    wordsCounter.saveSnapshot(snapshot);
+
+    try( WordsCounter restored = new WordsCounter( 60, TimeUnit.SECONDS )){
+      restored.loadSnapshot(snapshot);
+      assertEquals("Failed to check number of words", wordsCounter.wordCounts.size(), restored.wordCounts.size());
+      for( String key: wordsCounter.wordCounts.keySet() ){
+        assertEquals("Failed to check " + key, wordsCounter.wordCounts.get(key).getOccurencesNo().sum(), restored.wordCounts.get(key).getOccurencesNo().sum());
+        assertEquals("Failed to check " + key, wordsCounter.wordCounts.get(key).getFileIdSet(), restored.wordCounts.get(key).getFileIdSet());
+      }
+      assertEquals("Failed to check search", wordsCounter.search("a computer science"), restored.search("a computer science"));
+    }
+  }
+
+  @Test
+  public void testCorruptedSnapshotIsRejected(@TempDir Path tempDir) throws Exception {
+    assertTrue( "Failed to load files", wordsCounter.load(new String[]{"words/inputLarge1.txt"}));
+    String snapshot = tempDir.resolve("index.bin").toString();
+    wordsCounter.saveSnapshot(snapshot);
+    try( RandomAccessFile file = new RandomAccessFile(snapshot, "rw")){
+      file.seek(file.length() - 1);
+      int last = file.read();
+      file.seek(file.length() - 1);
+      file.write(last ^ 0xFF);
+    }
+
+    try( WordsCounter restored = new WordsCounter( 60, TimeUnit.SECONDS )){
+      assertThrows(IOException.class, () -> {
+        restored.loadSnapshot(snapshot);
+      });
+      assertTrue("Failed to check that words map is empty", restored.wordCounts.isEmpty());
+    }
+  }
+
+  private Map<String, WordMetaData> createWords( int numOfWords ){
+    Map<String, WordMetaData> words = new HashMap<>();
+    for( int i = 0; i < numOfWords; i++ ){
+      words.put("word" + i, new WordMetaData(new HashSet<>(Arrays.asList("file" + i % 3, "file" + ( i + 1 ) % 3)), i + 1));
+    }
+    return words;
+  }
+
+  private void waitForIdle( WordsCounter counter ) throws InterruptedException {
+    ThreadPoolExecutor pool = (ThreadPoolExecutor) counter.getController().getCpuPool();
+    long deadline = System.currentTimeMillis() + 5000;
+    while( ( pool.getActiveCount() > 0 || !pool.getQueue().isEmpty() ) && System.currentTimeMillis() < deadline ){
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testSaveAndLoadSnapshotWithManyChunks(@TempDir Path tempDir) throws Exception {
+    Map<String, WordMetaData> words = createWords( 20000 );
+    String snapshot = tempDir.resolve("index.bin").toString();
+    IndexSnapshot.write(words, snapshot, 1000);
+
+    try( WordsCounter restored = new WordsCounter( 60, TimeUnit.SECONDS )){
+      assertTrue( "Failed to load files", restored.load(new String[]{"words_small/inputSample1.txt"}));
+      restored.loadSnapshot(snapshot);
+      assertEquals("Failed to check that words map is replaced", words.keySet(), restored.wordCounts.keySet());
+      for( String key: words.keySet() ){
+        assertEquals("Failed to check " + key, words.get(key).getOccurencesNo().sum(), restored.wordCounts.get(key).getOccurencesNo().sum());
+        assertEquals("Failed to check " + key, words.get(key).getFileIdSet(), restored.wordCounts.get(key).getFileIdSet());
+      }
+    }
+  }
+
+  @Test
+  public void testCorruptedFirstChunkLeavesWordsUnchanged(@TempDir Path tempDir) throws Exception {
+    String snapshot = tempDir.resolve("index.bin").toString();
+    IndexSnapshot.write(createWords( 20000 ), snapshot, 1000);
+    // Header, dictionary block of three 5 bytes file names, number of chunks and first chunk header
+    long firstChunkPayload = 8 + 16 + 3 * ( 4 + 5 ) + 4 + 16;
+    try( RandomAccessFile file = new RandomAccessFile(snapshot, "rw")){
+      file.seek(firstChunkPayload + 4);
+      int value = file.read();
+      file.seek(firstChunkPayload + 4);
+      file.write(value ^ 0xFF);
+    }
+
+    try( WordsCounter restored = new WordsCounter( 60, TimeUnit.SECONDS )){
+      restored.wordCounts.put("existing", new WordMetaData("file0"));
+      assertThrows(IOException.class, () -> {
+        restored.loadSnapshot(snapshot);
+      });
+      waitForIdle( restored );
+      assertEquals("Failed to check that words map is unchanged", Collections.singleton("existing"), restored.wordCounts.keySet());
+    }
+  }
+
+  @Test
+  public void testCorruptedHeaderFieldsAreRejected(@TempDir Path tempDir) throws Exception {
+    String snapshot = tempDir.resolve("index.bin").toString();
+    IndexSnapshot.write(createWords( 2000 ), snapshot, 1000);
+    // Dictionary entries, number of chunks and first chunk entries, dictionary holds three 5 bytes file names
+    long[] offsets = new long[]{ 8, 8 + 16 + 3 * ( 4 + 5 ), 8 + 16 + 3 * ( 4 + 5 ) + 4 };
+    for( long offset : offsets ){
+      for( int value : new int[]{ Integer.MAX_VALUE, -1, 1000000 } ){
+        IndexSnapshot.write(createWords( 2000 ), snapshot, 1000);
+        try( RandomAccessFile file = new RandomAccessFile(snapshot, "rw")){
+          file.seek(offset);
+          file.writeInt(value);
+        }
+        try( WordsCounter restored = new WordsCounter( 60, TimeUnit.SECONDS )){
+          assertThrows("Failed to check offset " + offset + " value " + value, IOException.class, () -> {
+            restored.loadSnapshot(snapshot);
+          });
+          assertTrue("Failed to check that words map is empty", restored.wordCounts.isEmpty());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFailedSnapshotWriteRemovesTemporaryFile(@TempDir Path tempDir) throws Exception {
+    // Snapshot can't replace non empty directory, so write fails on move
+    Path snapshot = Files.createDirectory(tempDir.resolve("index.bin"));
+    Files.createFile(snapshot.resolve("content"));
+    assertThrows(IOException.class, () -> {
+      IndexSnapshot.write(createWords( 10 ), snapshot.toString());
+    });
+    assertFalse("Failed to check that temporary file is removed", Files.exists(tempDir.resolve("index.bin.tmp")));
+  }
 }